@@ -0,0 +1,194 @@
+package com.analytics;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Stores a dataset column by column in direct (off-heap) buffers instead of one DenseInstance per row,
+ * so the heap and garbage collector only ever see a handful of objects however many rows are loaded.
+ * The Weka APIs read it either as a stream of every row or as an Instances sample sized to fit the heap
+ */
+
+public class ColumnStore {
+    //Rows per buffer chunk, kept well below the 2 GB limit of a single ByteBuffer
+    private static final int CHUNK_ROWS = 1 << 16;
+    private static final int CELL_BYTES = Double.BYTES;
+
+    private final Instances header;
+    private final List<List<ByteBuffer>> columns;
+    private long rows;
+
+    public ColumnStore(Instances structure) {
+        header = new Instances(structure, 0);
+        columns = new ArrayList<>();
+        for (int i = 0; i < header.numAttributes(); i++) {
+            columns.add(new ArrayList<>());
+        }
+    }
+
+    //Create a method that appends one row, copying its values into the column buffers
+    public void add(Instance row) {
+        int chunk = (int) (rows / CHUNK_ROWS);
+        int offset = (int) (rows % CHUNK_ROWS) * CELL_BYTES;
+
+        for (int i = 0; i < columns.size(); i++) {
+            List<ByteBuffer> column = columns.get(i);
+            if (chunk == column.size()) {
+                column.add(ByteBuffer.allocateDirect(CHUNK_ROWS * CELL_BYTES).order(ByteOrder.nativeOrder()));
+            }
+            column.get(chunk).putDouble(offset, row.value(i));
+        }
+        rows++;
+    }
+
+    public double value(long row, int column) {
+        return buffer(row, column).getDouble((int) (row % CHUNK_ROWS) * CELL_BYTES);
+    }
+
+    public void setValue(long row, int column, double value) {
+        buffer(row, column).putDouble((int) (row % CHUNK_ROWS) * CELL_BYTES, value);
+    }
+
+    private ByteBuffer buffer(long row, int column) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rows);
+        }
+        return columns.get(column).get((int) (row / CHUNK_ROWS));
+    }
+
+    //Direct memory held by the column buffers, freed once the store is garbage collected
+    public long allocatedBytes() {
+        return bytesFor(rows, columns.size());
+    }
+
+    public long numRows() {
+        return rows;
+    }
+
+    //The attribute definitions with no rows, shared by every instance handed out by this store
+    public Instances header() {
+        return header;
+    }
+
+    //Create a method that builds a short-lived Instance view of one row for the Weka APIs
+    public Instance instance(long row) {
+        double[] values = new double[columns.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = value(row, i);
+        }
+        Instance instance = new DenseInstance(1.0, values);
+        instance.setDataset(header);
+        return instance;
+    }
+
+    //Create a method that copies a uniform random sample of rows onto the heap as Instances for the batch models
+    public Instances sample(int count, long seed) {
+        int size = (int) Math.min(count, rows);
+        Instances batch = new Instances(header, size);
+        Random random = new Random(seed);
+
+        //Selection sampling keeps every row equally likely and returns them in file order, without an index array
+        int needed = size;
+        for (long row = 0; row < rows && needed > 0; row++) {
+            if (random.nextDouble() * (rows - row) < needed) {
+                batch.add(instance(row));
+                needed--;
+            }
+        }
+        return batch;
+    }
+
+    //Create a method that replaces missing values with the column mean/mode, like ReplaceMissingValues with its
+    //default settings, which imputes the class column too
+    public void replaceMissingValues() {
+        for (int col = 0; col < columns.size(); col++) {
+            Attribute attribute = header.attribute(col);
+            if (!(attribute.isNumeric() || attribute.isNominal())) {
+                continue;
+            }
+
+            double replacement = attribute.isNumeric() ? columnMean(col) : columnMode(col, attribute.numValues());
+            if (Utils.isMissingValue(replacement)) {
+                continue;
+            }
+
+            for (long row = 0; row < rows; row++) {
+                if (Utils.isMissingValue(value(row, col))) {
+                    setValue(row, col, replacement);
+                }
+            }
+        }
+    }
+
+    private double columnMean(int col) {
+        double sum = 0;
+        long count = 0;
+        for (long row = 0; row < rows; row++) {
+            double value = value(row, col);
+            if (!Utils.isMissingValue(value)) {
+                sum += value;
+                count++;
+            }
+        }
+        return count == 0 ? Utils.missingValue() : sum / count;
+    }
+
+    private double columnMode(int col, int numValues) {
+        long[] counts = new long[numValues];
+        for (long row = 0; row < rows; row++) {
+            double value = value(row, col);
+            if (!Utils.isMissingValue(value)) {
+                counts[(int) value]++;
+            }
+        }
+
+        int mode = -1;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0 && (mode == -1 || counts[i] > counts[mode])) {
+                mode = i;
+            }
+        }
+        return mode == -1 ? Utils.missingValue() : mode;
+    }
+
+    //Create a method that walks every row once, for training updateable models on the full dataset
+    public InstanceStream stream() {
+        return new InstanceStream() {
+            private long next;
+
+            @Override
+            public Instances getStructure() {
+                return header;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < rows;
+            }
+
+            @Override
+            public Instance next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return instance(next++);
+            }
+        };
+    }
+
+    //Bytes of direct memory a store with these dimensions needs
+    public static long bytesFor(long rows, int columns) {
+        long chunks = (rows + CHUNK_ROWS - 1) / CHUNK_ROWS;
+        return chunks * CHUNK_ROWS * CELL_BYTES * columns;
+    }
+}
@@ -1,5 +1,6 @@
 package com.analytics;
 
+import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.converters.CSVLoader;
 import weka.filters.Filter;
@@ -7,10 +8,18 @@ import weka.filters.unsupervised.attribute.ReplaceMissingValues;
 import weka.filters.unsupervised.attribute.NumericToNominal;
 
 import javax.xml.crypto.Data;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
 
 /**
  * Handles data loading, cleaning, and basic analysis
@@ -19,6 +28,9 @@ import java.util.Map;
 public class DataProcessor {
     private Instances data;
     private Map<String, String> dataStats;
+    private ExecutionPlan plan;
+    private String sourcePath;
+    private ColumnStore store;
 
     public DataProcessor() {
         dataStats = new HashMap<>();
@@ -26,17 +38,44 @@ public class DataProcessor {
 
     //Create a method that loads the data from the CSV file
     public boolean loadData(String filePath) {
+        return loadData(filePath, true);
+    }
+
+    //Create a method that loads the data with a memory plan made for the chosen evaluation mode
+    public boolean loadData(String filePath, boolean repeatedEvaluation) {
         try {
-            CSVLoader load = new CSVLoader();
-            load.setSource(new File(filePath));
-            data = load.getDataSet();
+            //Drop the previous dataset first so the plan is not made against memory it still holds
+            long releasedDirectBytes = store == null ? 0 : store.allocatedBytes();
+            data = null;
+            store = null;
+            plan = null;
+
+            //Estimate the memory needed before any heavy loading starts
+            plan = new MemoryPlanner().plan(new File(filePath), releasedDirectBytes, repeatedEvaluation);
+            sourcePath = filePath;
+            System.out.println(plan);
+
+            if (plan.getMode() == ExecutionPlan.Mode.IN_MEMORY) {
+                CSVLoader load = new CSVLoader();
+                load.setSource(new File(filePath));
+                data = load.getDataSet();
+            } else if (plan.getMode() == ExecutionPlan.Mode.OFF_HEAP_COLUMNAR) {
+                store = loadColumnStore(filePath);
+                data = store.sample(plan.getSampleRows(), 1);
+            } else {
+                data = loadSample(filePath, plan.getSampleRows());
+            }
 
-            if (data.numInstances() == 0) {
+            if (numRows() == 0) {
                 System.err.println("No data found in the file");
                 return false;
             }
 
-            System.out.println("Loaded " + data.numInstances() + " rows and " + data.numAttributes() + " columns");
+            System.out.println("Loaded " + numRows() + " rows and " + data.numAttributes() + " columns"
+                    + (store != null ? " into off-heap columns" : ""));
+            if (plan.getMode() == ExecutionPlan.Mode.STREAMING) {
+                System.out.println("Training will stream all rows from " + filePath);
+            }
             return true;
 
         } catch (IOException exception) {
@@ -45,12 +84,134 @@ public class DataProcessor {
         }
     }
 
+    //Create a method that loads a uniform random sample of rows so a large file fits in memory
+    private Instances loadSample(String filePath, int sampleRows) throws IOException {
+        //The sampled lines are only reachable inside writeSample, so they can be collected while CSVLoader parses
+        File sampleFile = writeSample(filePath, sampleRows);
+        try {
+            CSVLoader load = new CSVLoader();
+            load.setSource(sampleFile);
+            return load.getDataSet();
+        } finally {
+            sampleFile.delete();
+        }
+    }
+
+    //Create a method that writes a reservoir sample of the rows to a temporary CSV file
+    private File writeSample(String filePath, int sampleRows) throws IOException {
+        String header;
+        List<String> reservoir = new ArrayList<>(sampleRows);
+        Random random = new Random(1);
+
+        //Reservoir sampling keeps every row equally likely without knowing the row count in advance
+        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
+            header = reader.readLine();
+            String line;
+            long seen = 0;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                seen++;
+                if (reservoir.size() < sampleRows) {
+                    reservoir.add(line);
+                } else {
+                    long slot = (long) (random.nextDouble() * seen);
+                    if (slot < sampleRows) {
+                        reservoir.set((int) slot, line);
+                    }
+                }
+            }
+        }
+
+        //Write the sample to a temporary file so CSVLoader detects the column types as usual
+        File sampleFile = File.createTempFile("analytics_sample_", ".csv");
+        sampleFile.deleteOnExit();
+        try (FileWriter writer = new FileWriter(sampleFile)) {
+            writer.write(header == null ? "" : header);
+            writer.write("\n");
+            for (String row : reservoir) {
+                writer.write(row);
+                writer.write("\n");
+            }
+        }
+        return sampleFile;
+    }
+
+    //Create a method that reads the file row by row straight into off-heap columns
+    private ColumnStore loadColumnStore(String filePath) throws IOException {
+        CSVLoader load = new CSVLoader();
+        load.setSource(new File(filePath));
+        Instances structure = load.getStructure();
+
+        ColumnStore columns = new ColumnStore(structure);
+        Instance row;
+        while ((row = load.getNextInstance(structure)) != null) {
+            columns.add(row);
+        }
+        return columns;
+    }
+
+    //Create a method that opens the data for one pass of streaming training
+    public InstanceStream openStream() throws IOException {
+        if (store != null) {
+            return store.stream();
+        }
+
+        CSVLoader load = new CSVLoader();
+        load.setSource(new File(sourcePath));
+        Instances structure = load.getStructure();
+        if (data != null) {
+            structure.setClassIndex(data.classIndex());
+        }
+
+        return new InstanceStream() {
+            private Instance next;
+            private boolean finished;
+
+            @Override
+            public Instances getStructure() {
+                return structure;
+            }
+
+            @Override
+            public boolean hasNext() {
+                if (next == null && !finished) {
+                    try {
+                        next = load.getNextInstance(structure);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    finished = next == null;
+                }
+                return next != null;
+            }
+
+            @Override
+            public Instance next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Instance row = next;
+                next = null;
+                return row;
+            }
+        };
+    }
+
 //Create a method to clean the data by handling missing values
 
     public Instances cleanData() {
         if (data == null) {
             return null;
         }
+        if (store != null) {
+            //Impute in place using every row, then hand the batch models a cleaned heap-sized sample
+            store.replaceMissingValues();
+            Instances cleaned = store.sample(plan.getSampleRows(), 1);
+            System.out.println("Data cleaned successfully");
+            return cleaned;
+        }
         try {
             //Replace the missing values with mean/mode
             ReplaceMissingValues replace = new ReplaceMissingValues();
@@ -71,8 +232,21 @@ public class DataProcessor {
             return dataStats;
         }
         dataStats.clear();
-        dataStats.put("Total Rows", String.valueOf(data.numInstances()));
+        dataStats.put("Total Rows", String.valueOf(numRows()));
         dataStats.put("Total Columns", String.valueOf(data.numAttributes()));
+        if (plan != null) {
+            dataStats.put("Execution Plan", plan.getMode().toString());
+            dataStats.put("Estimated Peak Memory", ExecutionPlan.toMegabytes(plan.getPeakBytes()));
+            dataStats.put("Available Heap", ExecutionPlan.toMegabytes(plan.getAvailableBytes()));
+            if (plan.getMode() == ExecutionPlan.Mode.SAMPLING || plan.getMode() == ExecutionPlan.Mode.STREAMING) {
+                dataStats.put("Estimated Rows In File", String.valueOf(plan.getEstimatedRows()));
+            }
+            if (store != null) {
+                dataStats.put("Rows In Heap Batch", String.valueOf(data.numInstances()));
+                dataStats.put("Off-heap Columns", ExecutionPlan.toMegabytes(plan.getColumnarBytes())
+                        + " of " + ExecutionPlan.toMegabytes(plan.getAvailableDirectBytes()) + " direct memory");
+            }
+        }
 
         //Count the numeric and categorical attributes
         int numeric = 0;
@@ -111,6 +285,9 @@ public class DataProcessor {
         for (int i = 0; i < data.numAttributes(); i++) {
             if (data.attribute(i).name().equals(target)) {
                 data.setClassIndex(i);
+                if (store != null) {
+                    store.header().setClassIndex(i);
+                }
                 System.out.println("Target column set to: " + target);
                 return;
             }
@@ -121,4 +298,30 @@ public class DataProcessor {
     public Instances getData() {
         return data;
     }
+
+    //Rows loaded, whether they are held as Instances or in the off-heap column store
+    public long numRows() {
+        if (store != null) {
+            return store.numRows();
+        }
+        return data == null ? 0 : data.numInstances();
+    }
+
+    public String getSourcePath() {
+        return sourcePath;
+    }
+
+    public ExecutionPlan getPlan() {
+        return plan;
+    }
+
+    //True when the file is too large for batch models and training has to stream the rows
+    public boolean isStreaming() {
+        return plan != null && plan.getMode() == ExecutionPlan.Mode.STREAMING;
+    }
+
+    //True when every row is held off-heap and getData() is a heap-sized sample of them
+    public boolean isOffHeap() {
+        return store != null;
+    }
 }
\ No newline at end of file
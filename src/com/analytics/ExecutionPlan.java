@@ -0,0 +1,100 @@
+package com.analytics;
+
+/**
+ * Describes how a dataset will be processed, together with the memory estimates behind that decision
+ */
+
+public class ExecutionPlan {
+
+    //The ways a dataset can be loaded and trained on, in the order the planner tries them
+    public enum Mode {
+        IN_MEMORY,
+        OFF_HEAP_COLUMNAR,
+        SAMPLING,
+        STREAMING
+    }
+
+    private final Mode mode;
+    private final boolean repeatedEvaluation;
+    private final long estimatedRows;
+    private final int columns;
+    private final boolean exactRowCount;
+    private final long instancesBytes;
+    private final long peakBytes;
+    private final long availableBytes;
+    private final long columnarBytes;
+    private final long availableDirectBytes;
+    private final int sampleRows;
+
+    public ExecutionPlan(Mode mode, boolean repeatedEvaluation, long estimatedRows, int columns,
+                         boolean exactRowCount, long instancesBytes, long peakBytes, long availableBytes,
+                         long columnarBytes, long availableDirectBytes, int sampleRows) {
+        this.mode = mode;
+        this.repeatedEvaluation = repeatedEvaluation;
+        this.estimatedRows = estimatedRows;
+        this.columns = columns;
+        this.exactRowCount = exactRowCount;
+        this.instancesBytes = instancesBytes;
+        this.peakBytes = peakBytes;
+        this.availableBytes = availableBytes;
+        this.columnarBytes = columnarBytes;
+        this.availableDirectBytes = availableDirectBytes;
+        this.sampleRows = sampleRows;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    //Whether the estimates assume repeated CV with bootstrap or a single 10-fold CV
+    public boolean isRepeatedEvaluation() {
+        return repeatedEvaluation;
+    }
+
+    public long getEstimatedRows() {
+        return estimatedRows;
+    }
+
+    public long getPeakBytes() {
+        return peakBytes;
+    }
+
+    public long getAvailableBytes() {
+        return availableBytes;
+    }
+
+    public long getColumnarBytes() {
+        return columnarBytes;
+    }
+
+    public long getAvailableDirectBytes() {
+        return availableDirectBytes;
+    }
+
+    //Number of rows to keep in memory when the plan does not load the whole file
+    public int getSampleRows() {
+        return sampleRows;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append("Execution plan: ").append(mode)
+                .append(repeatedEvaluation ? " (repeated CV + bootstrap)" : " (single 10-fold CV)").append("\n");
+        text.append("  Rows: ").append(exactRowCount ? "" : "~").append(estimatedRows)
+                .append(", Columns: ").append(columns).append("\n");
+        text.append("  Instances size: ").append(toMegabytes(instancesBytes)).append("\n");
+        text.append("  Peak (load, clean, CV, models): ").append(toMegabytes(peakBytes)).append("\n");
+        text.append("  Available heap: ").append(toMegabytes(availableBytes)).append("\n");
+        text.append("  Off-heap columns: ").append(toMegabytes(columnarBytes))
+                .append(" of ").append(toMegabytes(availableDirectBytes)).append(" direct memory");
+        if (mode != Mode.IN_MEMORY) {
+            text.append("\n  Rows kept in memory: ").append(sampleRows);
+        }
+        return text.toString();
+    }
+
+    static String toMegabytes(long bytes) {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
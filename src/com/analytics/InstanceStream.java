@@ -0,0 +1,16 @@
+package com.analytics;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.Iterator;
+
+/**
+ * A single pass over the rows of a dataset that is too large to hold as Instances
+ */
+
+public interface InstanceStream extends Iterator<Instance> {
+
+    //The header shared by every row in the stream, with the class index set
+    Instances getStructure();
+}
@@ -0,0 +1,206 @@
+package com.analytics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+/**
+ * Samples a CSV file to estimate how much heap it will need once loaded, cleaned, cross-validated and modelled,
+ * then chooses an execution plan that fits the memory available to the JVM
+ */
+
+public class MemoryPlanner {
+    //Number of lines read from the top of the file to estimate the average row width
+    private static final int SAMPLE_LINES = 1000;
+
+    //Bytes per row for a DenseInstance: object header, fields, double[] header and its slot in the ArrayList
+    private static final long INSTANCE_OVERHEAD = 64;
+
+    //CSVLoader keeps every parsed cell as a boxed object before it builds the Instances
+    private static final long LOADER_BYTES_PER_CELL = 48;
+
+    //Copies of the data alive throughout training: the original and the cleaned data
+    private static final int TRAINING_COPIES = 2;
+
+    //A single CV also holds a shuffled copy and one training fold, plus the full-data forest and one fold forest
+    private static final int SINGLE_CV_COPIES = 2;
+    private static final int SINGLE_CV_FORESTS = 2;
+
+    //Each resampling thread holds one train/test split and the forest built on it
+    private static final int SPLIT_COPIES = 2;
+
+    //Random Forest grows unpruned trees, so each tree needs roughly one node per training row
+    private static final int FOREST_TREES = 100;
+    private static final long TREE_BYTES_PER_ROW = 100;
+
+    //Only use part of the free heap so the GUI and the JVM itself have room left
+    private static final double HEAP_SAFETY_FACTOR = 0.8;
+
+    //A sample smaller than this fraction of the file is not representative, so stream instead
+    private static final double MIN_SAMPLE_FRACTION = 0.1;
+
+    //Rows kept in memory for previews and statistics when streaming
+    private static final int STREAMING_PREVIEW_ROWS = 1000;
+
+    //Create a method that estimates the memory needed for the file and chooses a plan for the evaluation mode.
+    //Direct buffers of a dataset that was just dropped still show as used until a GC frees them,
+    //but allocateDirect triggers that GC itself, so they are counted as available again
+    public ExecutionPlan plan(File file, long releasedDirectBytes, boolean repeatedEvaluation) throws IOException {
+        long fileBytes = file.length();
+        int columns = 0;
+        long headerBytes = 0;
+        long sampledBytes = 0;
+        int sampledLines = 0;
+        boolean reachedEnd = false;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String header = reader.readLine();
+            if (header != null) {
+                columns = header.split(",", -1).length;
+                headerBytes = header.length() + 1;
+            }
+
+            String line;
+            while (sampledLines < SAMPLE_LINES && (line = reader.readLine()) != null) {
+                sampledBytes += line.length() + 1;
+                sampledLines++;
+            }
+            reachedEnd = reader.readLine() == null;
+        }
+
+        //Extrapolate the row count from the average width of the sampled rows
+        long rows;
+        if (reachedEnd || sampledLines == 0) {
+            rows = sampledLines;
+        } else {
+            double averageRowBytes = (double) sampledBytes / sampledLines;
+            rows = (long) ((fileBytes - headerBytes) / averageRowBytes);
+        }
+
+        long instanceBytes = bytesPerInstance(columns);
+        long instancesBytes = rows * instanceBytes;
+        long rowPeakBytes = bytesPerRowAtPeak(columns, repeatedEvaluation);
+        long peakBytes = rows * rowPeakBytes;
+        long availableBytes = availableHeap();
+        long budget = (long) (availableBytes * HEAP_SAFETY_FACTOR);
+        long columnarBytes = ColumnStore.bytesFor(rows, columns);
+        long availableDirectBytes = availableDirectMemory() + releasedDirectBytes;
+
+        ExecutionPlan.Mode mode;
+        int sampleRows;
+
+        if (peakBytes <= budget) {
+            mode = ExecutionPlan.Mode.IN_MEMORY;
+            sampleRows = (int) Math.min(rows, Integer.MAX_VALUE);
+        } else {
+            //Largest sample that still fits every phase of the in-memory pipeline
+            long fittingRows = Math.min(budget / rowPeakBytes, Integer.MAX_VALUE);
+
+            if (columnarBytes <= availableDirectBytes * HEAP_SAFETY_FACTOR) {
+                //Every row fits as packed doubles outside the heap, so keep them all there and
+                //copy only a heap-sized batch back for the batch models. This beats a sample of any size,
+                //since cleaning and the updateable models still see every row
+                mode = ExecutionPlan.Mode.OFF_HEAP_COLUMNAR;
+                sampleRows = (int) Math.max(fittingRows, Math.min(rows, STREAMING_PREVIEW_ROWS));
+            } else if (fittingRows >= rows * MIN_SAMPLE_FRACTION) {
+                mode = ExecutionPlan.Mode.SAMPLING;
+                sampleRows = (int) fittingRows;
+            } else {
+                mode = ExecutionPlan.Mode.STREAMING;
+                sampleRows = STREAMING_PREVIEW_ROWS;
+            }
+        }
+
+        return new ExecutionPlan(mode, repeatedEvaluation, rows, columns, reachedEnd, instancesBytes, peakBytes,
+                availableBytes, columnarBytes, availableDirectBytes, sampleRows);
+    }
+
+    //Estimate the heap used by one DenseInstance with the given number of attributes
+    static long bytesPerInstance(int columns) {
+        return INSTANCE_OVERHEAD + 8L * columns;
+    }
+
+    //Estimate the heap each row costs at the most memory hungry point of loading or training.
+    //Resampling is planned for one thread; the pool only grows when the heap left over allows it
+    static long bytesPerRowAtPeak(int columns, boolean repeatedEvaluation) {
+        long instance = bytesPerInstance(columns);
+        long loading = LOADER_BYTES_PER_CELL * columns + instance;
+
+        long training;
+        if (repeatedEvaluation) {
+            //The cached fold numbers stay alive for as long as the trainer does
+            training = TRAINING_COPIES * instance + bytesPerResamplingThread(columns)
+                    + ResamplingEvaluator.cachedBytesPerRow(ModelTraining.CV_REPEATS);
+        } else {
+            training = (TRAINING_COPIES + SINGLE_CV_COPIES) * instance + SINGLE_CV_FORESTS * forestBytesPerRow();
+        }
+
+        return Math.max(1, Math.max(loading, training));
+    }
+
+    //Create a method that sizes the resampling thread pool from the planner's own estimates: the heap budget,
+    //less the original and cleaned data and the cached folds, divided by what one thread holds
+    public static int resamplingThreads(long rows, int columns) {
+        long budget = (long) (Runtime.getRuntime().maxMemory() * HEAP_SAFETY_FACTOR);
+        long resident = rows * (TRAINING_COPIES * bytesPerInstance(columns)
+                + ResamplingEvaluator.cachedBytesPerRow(ModelTraining.CV_REPEATS));
+        long perThread = Math.max(1, rows * bytesPerResamplingThread(columns));
+        long threads = Math.min((budget - resident) / perThread, Runtime.getRuntime().availableProcessors());
+        return (int) Math.max(1, threads);
+    }
+
+    static long bytesPerResamplingThread(int columns) {
+        return SPLIT_COPIES * bytesPerInstance(columns) + forestBytesPerRow();
+    }
+
+    static long forestBytesPerRow() {
+        return FOREST_TREES * TREE_BYTES_PER_ROW;
+    }
+
+    //Heap the JVM can still grow into, after what is already in use.
+    //Young generation pools (eden and survivor) are measured right after their last collection, since most of
+    //what they hold is short-lived garbage. Every other heap pool, including the old generation, is measured as
+    //it is now: its after-collection figure only updates on an old generation collection and misses live data.
+    //Old generation garbage is therefore counted as used, which errs towards a smaller plan
+    static long availableHeap() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) {
+                continue;
+            }
+            MemoryUsage afterCollection = pool.getCollectionUsage();
+            boolean young = pool.getName().contains("Eden") || pool.getName().contains("Survivor");
+            used += young && afterCollection != null ? afterCollection.getUsed() : pool.getUsage().getUsed();
+        }
+        return Runtime.getRuntime().maxMemory() - used;
+    }
+
+    //Direct memory still free for ByteBuffers, which defaults to the maximum heap size unless -XX:MaxDirectMemorySize is set
+    static long availableDirectMemory() {
+        long limit = Runtime.getRuntime().maxMemory();
+        try {
+            com.sun.management.HotSpotDiagnosticMXBean hotSpot =
+                    ManagementFactory.getPlatformMXBean(com.sun.management.HotSpotDiagnosticMXBean.class);
+            long configured = Long.parseLong(hotSpot.getVMOption("MaxDirectMemorySize").getValue());
+            if (configured > 0) {
+                limit = configured;
+            }
+        } catch (RuntimeException e) {
+            //Not a HotSpot JVM, so keep the default limit
+        }
+
+        long used = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                used = pool.getMemoryUsed();
+            }
+        }
+        return Math.max(0, limit - used);
+    }
+}
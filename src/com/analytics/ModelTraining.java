@@ -2,26 +2,70 @@ package com.analytics;
 
 import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
+import weka.classifiers.UpdateableClassifier;
+import weka.classifiers.bayes.NaiveBayesUpdateable;
 import weka.classifiers.functions.LinearRegression;
 import weka.classifiers.functions.Logistic;
+import weka.classifiers.functions.SGD;
+import weka.classifiers.trees.HoeffdingTree;
 import weka.classifiers.trees.RandomForest;
+import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.SelectedTag;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 
 /**
  * This class trains different ML models and compares their performance
  */
 
 public class ModelTraining {
+    //Rows used to initialise streaming models before prequential evaluation starts
+    private static final int WARM_UP_ROWS = 1000;
+
+    //Repeated CV and bootstrap settings: up to 5x10-fold CV plus 25 out-of-bag resamples
+    static final int CV_REPEATS = 5;
+    private static final int CV_FOLDS = 10;
+    private static final int BOOTSTRAPS = 25;
+
+    //Fewer bootstrap samples than this give no usable percentile interval, so none are run
+    private static final int MIN_BOOTSTRAPS = 10;
+
+    //A difference between the top two models counts as significant below this p-value
+    private static final double SIGNIFICANCE_LEVEL = 0.05;
+
     private Map<String, Double> accuracy;
     private Map<String, String> summary;
+    private Map<String, ResamplingEvaluator.Result> resampled;
+
+    //Models scored prequentially on a stream, which are ranked apart from the cross-validated batch models
+    private Set<String> streamed;
+    private ResamplingEvaluator evaluator;
+    private boolean repeatedEvaluation;
+
+    //Regression models evaluated with resampling are ranked by RMSE, where lower is better
+    private boolean rankByError;
 
     public ModelTraining() {
         accuracy = new HashMap<>();
         summary = new HashMap<>();
+        resampled = new HashMap<>();
+        streamed = new HashSet<>();
+        evaluator = new ResamplingEvaluator(CV_REPEATS, CV_FOLDS, BOOTSTRAPS);
+        repeatedEvaluation = true;
+    }
+
+    //Choose between repeated CV with bootstrap intervals and a single 10-fold CV
+    public void setRepeatedEvaluation(boolean repeatedEvaluation) {
+        this.repeatedEvaluation = repeatedEvaluation;
+        if (!repeatedEvaluation) {
+            evaluator.clear();
+        }
     }
 
     //Trains multiple models and compare their performance
@@ -33,9 +77,12 @@ public class ModelTraining {
 
         accuracy.clear();
         summary.clear();
+        resampled.clear();
+        streamed.clear();
 
         //Determine if this is classification or regression
         boolean isClass = !data.classAttribute().isNumeric();
+        rankByError = repeatedEvaluation && !isClass;
 
         System.out.println("Training " + (isClass ? "classification" : "regression") + " models...");
 
@@ -51,20 +98,93 @@ public class ModelTraining {
 
     //Create a private void method to train classification models (for predicting categories)
     private void trainClassificationModels(Instances data) {
+        Map<String, Classifier> models = new LinkedHashMap<>();
+
         //Logistic Regression Model
-        trainOneModel(new Logistic(), "Logistic Regression", data);
+        models.put("Logistic Regression", new Logistic());
 
         //Random Forest Model
-        trainOneModel(new RandomForest(), "Random Forest", data);
+        models.put("Random Forest", new RandomForest());
+
+        evaluateModels(models, data);
     }
 
     //Create a private void method for training regression models (for predicting numbers)
     private void trainRegressionModels(Instances data) {
+        Map<String, Classifier> models = new LinkedHashMap<>();
+
         //Linear Regression Model
-        trainOneModel(new LinearRegression(), "Linear Regression", data);
+        models.put("Linear Regression", new LinearRegression());
 
         //Random Forest Model for Regression
-        trainOneModel(new RandomForest(), "Random Forest (Regression)", data);
+        models.put("Random Forest (Regression)", new RandomForest());
+
+        evaluateModels(models, data);
+    }
+
+    //Create a private void method that evaluates the models with the selected evaluation mode
+    private void evaluateModels(Map<String, Classifier> models, Instances data) {
+        if (!repeatedEvaluation) {
+            for (Map.Entry<String, Classifier> entry : models.entrySet()) {
+                trainOneModel(entry.getValue(), entry.getKey(), data);
+            }
+            return;
+        }
+
+        //Budget as many fits per thread as one sequential 10-fold CV (ten folds plus the full model),
+        //so the repeats and bootstraps shrink with the threads the heap allows
+        int threads = MemoryPlanner.resamplingThreads(data.numInstances(), data.numAttributes());
+        int fits = (CV_FOLDS + 1) * threads;
+        int repeats = Math.max(1, Math.min(CV_REPEATS, fits / CV_FOLDS));
+        int bootstraps = Math.min(BOOTSTRAPS, fits - repeats * CV_FOLDS);
+        if (bootstraps < MIN_BOOTSTRAPS) {
+            bootstraps = 0;
+        }
+        if (repeats < CV_REPEATS || bootstraps < BOOTSTRAPS) {
+            System.out.println("Only " + threads + " resampling thread(s) fit in memory, so running " + repeats + "x"
+                    + CV_FOLDS + " CV" + (bootstraps > 0 ? " and " + bootstraps + " bootstrap resamples" : " without bootstrap")
+                    + " instead of " + CV_REPEATS + "x" + CV_FOLDS + " CV and " + BOOTSTRAPS + " bootstrap resamples");
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            Map<String, ResamplingEvaluator.Result> results = evaluator.evaluate(models, data, threads, repeats, bootstraps);
+            System.out.println("Evaluated " + repeats + "x" + CV_FOLDS + " CV and " + bootstraps
+                    + " bootstrap resamples in " + (System.currentTimeMillis() - start) + " ms");
+
+            boolean isNumeric = data.classAttribute().isNumeric();
+            for (Map.Entry<String, ResamplingEvaluator.Result> entry : results.entrySet()) {
+                String name = entry.getKey();
+                ResamplingEvaluator.Result result = entry.getValue();
+                if (!result.isValid()) {
+                    recordFailure(name, new IllegalStateException("no resample could be evaluated"));
+                    continue;
+                }
+
+                String metric = isNumeric ? "RMSE" : "Accuracy";
+                String format = isNumeric ? "%.3f" : "%.2f%%";
+                String summarize = String.format("%s: " + format + " (95%% CI " + format + " to " + format + ", %dx%d CV)",
+                        metric, result.getMean(), result.getLower(), result.getUpper(), repeats, CV_FOLDS);
+                if (bootstraps > 0) {
+                    summarize += String.format(", Bootstrap: " + format + " (95%% CI " + format + " to " + format + ")",
+                            result.getBootstrapMean(), result.getBootstrapLower(), result.getBootstrapUpper());
+                }
+                if (result.getDroppedResamples() > 0) {
+                    summarize += ", " + result.getDroppedResamples() + " of " + result.getResamples()
+                            + " resamples dropped";
+                }
+
+                accuracy.put(name, result.getMean());
+                summary.put(name, summarize);
+                resampled.put(name, result);
+
+                System.out.println(name + " - " + summarize);
+            }
+        } catch (Exception e) {
+            for (String name : models.keySet()) {
+                recordFailure(name, e);
+            }
+        }
     }
 
     //Create a private void method to train a single model and evaluate its performance
@@ -77,48 +197,210 @@ public class ModelTraining {
             Evaluation eval = new Evaluation(data);
             eval.crossValidateModel(classifier, data, 10, new Random(1));
 
-            //Get the accuracy
-            double accurate;
-            String summarize;
-
-            if (data.classAttribute().isNumeric()) {
-                //For regression, utilize the correlation coefficient
-                accurate = eval.correlationCoefficient();
-                summarize = String.format("Correlation: %.3f, Mean Error: %.3f", accurate, eval.meanAbsoluteError());
-            } else {
-                //For classification, utilize a percentage correction
-                accurate = eval.pctCorrect();
-                summarize = String.format("Accuracy: %.2f%%, Precision: %.3f, Recall: %.3f", accurate, eval.weightedPrecision(), eval.weightedRecall());
+            recordResult(name, eval, data.classAttribute().isNumeric(), "10-fold CV");
+        } catch (Exception e) {
+            recordFailure(name, e);
+        }
+    }
+
+    //Trains the batch models on a heap-sized sample and the updateable models on every row of the stream
+    public Map<String, Double> trainModel(Instances batch, InstanceStream allRows) {
+        trainModel(batch);
+        if (batch != null && batch.classIndex() != -1) {
+            System.out.println("Batch models used " + batch.numInstances() + " sampled rows");
+            streamModels(allRows);
+        }
+        return accuracy;
+    }
+
+    //Trains updateable models in a single pass over a stream that does not fit in memory
+    public Map<String, Double> trainModelStreaming(InstanceStream stream) {
+        accuracy.clear();
+        summary.clear();
+        resampled.clear();
+        streamed.clear();
+
+        streamModels(stream);
+        return accuracy;
+    }
+
+    //Create a private void method that streams rows through the updateable models, adding to the current results
+    private void streamModels(InstanceStream stream) {
+        Instances structure = stream.getStructure();
+        if (structure == null || structure.classIndex() == -1) {
+            System.err.println("Data not properly set up for training");
+            return;
+        }
+
+        boolean isClass = !structure.classAttribute().isNumeric();
+        rankByError = repeatedEvaluation && !isClass;
+
+        System.out.println("Streaming " + (isClass ? "classification" : "regression") + " models...");
+
+        Map<String, Classifier> models = new LinkedHashMap<>();
+        if (isClass) {
+            models.put("Naive Bayes (Streaming)", new NaiveBayesUpdateable());
+            models.put("Hoeffding Tree (Streaming)", new HoeffdingTree());
+        } else {
+            SGD sgd = new SGD();
+            sgd.setLossFunction(new SelectedTag(SGD.SQUAREDLOSS, SGD.TAGS_SELECTION));
+            models.put("SGD Linear Regression (Streaming)", sgd);
+        }
+
+        //Build every model on a warm-up batch so their filters and normalisation are initialised
+        Instances warmUp = new Instances(structure, WARM_UP_ROWS);
+        while (warmUp.numInstances() < WARM_UP_ROWS && stream.hasNext()) {
+            warmUp.add(stream.next());
+        }
+
+        Map<String, Evaluation> evaluations = new LinkedHashMap<>();
+        for (Map.Entry<String, Classifier> entry : models.entrySet()) {
+            streamed.add(entry.getKey());
+            try {
+                entry.getValue().buildClassifier(warmUp);
+                Evaluation eval = new Evaluation(warmUp);
+                eval.setDiscardPredictions(true);
+                evaluations.put(entry.getKey(), eval);
+            } catch (Exception e) {
+                recordFailure(entry.getKey(), e);
             }
+        }
+
+        //Test each row on every model before training on it (prequential evaluation)
+        long rows = 0;
+        try {
+            while (stream.hasNext() && !evaluations.isEmpty()) {
+                Instance row = stream.next();
+                rows++;
+                for (String name : evaluations.keySet().toArray(new String[0])) {
+                    Classifier classifier = models.get(name);
+                    try {
+                        evaluations.get(name).evaluateModelOnceAndRecordPrediction(classifier, row);
+                        ((UpdateableClassifier) classifier).updateClassifier(row);
+                    } catch (Exception e) {
+                        evaluations.remove(name);
+                        recordFailure(name, e);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error reading stream after " + rows + " rows: " + e.getMessage());
+        }
 
-            accuracy.put(name, accurate);
-            summary.put(name, summarize);
+        System.out.println("Streamed " + (warmUp.numInstances() + rows) + " rows");
 
-            System.out.println(name + " - " + summarize);
-        } catch (Exception e) {
-            System.err.println("Error training " + name + ": " + e.getMessage());
-            accuracy.put(name, 0.0);
-            summary.put(name, "Training failed: " + e.getMessage());
+        for (Map.Entry<String, Evaluation> entry : evaluations.entrySet()) {
+            try {
+                if (rows == 0) {
+                    throw new IllegalStateException("not enough rows after the warm-up batch");
+                }
+                recordResult(entry.getKey(), entry.getValue(), !isClass, "prequential");
+            } catch (Exception e) {
+                recordFailure(entry.getKey(), e);
+            }
         }
     }
 
-    //Create a method to return the name of the best performing model based on the evaluations
+    //Create a private void method to store the score and summary of an evaluated model, labelled with how it was evaluated
+    private void recordResult(String name, Evaluation eval, boolean isNumeric, String protocol) throws Exception {
+        //Get the accuracy
+        double accurate;
+        String summarize;
+
+        if (isNumeric && rankByError) {
+            //Rank by error so the scores line up with the resampled regression models
+            accurate = eval.rootMeanSquaredError();
+            summarize = String.format("RMSE: %.3f, Mean Error: %.3f", accurate, eval.meanAbsoluteError());
+        } else if (isNumeric) {
+            //For regression, utilize the correlation coefficient
+            accurate = eval.correlationCoefficient();
+            summarize = String.format("Correlation: %.3f, Mean Error: %.3f", accurate, eval.meanAbsoluteError());
+        } else {
+            //For classification, utilize a percentage correction
+            accurate = eval.pctCorrect();
+            summarize = String.format("Accuracy: %.2f%%, Precision: %.3f, Recall: %.3f", accurate, eval.weightedPrecision(), eval.weightedRecall());
+        }
+
+        summarize += " (" + protocol + ")";
+
+        accuracy.put(name, accurate);
+        summary.put(name, summarize);
+
+        System.out.println(name + " - " + summarize);
+    }
+
+    private void recordFailure(String name, Exception e) {
+        System.err.println("Error training " + name + ": " + e.getMessage());
+        accuracy.put(name, Double.NaN);
+        summary.put(name, "Training failed: " + e.getMessage());
+    }
+
+    //Create a method to return the name of the best performing model based on the evaluations.
+    //Cross-validated batch models and prequentially scored streaming models are not measured the same way,
+    //so each group is ranked on its own
     public String getBestModel() {
         if (accuracy.isEmpty()) {
             return "No models trained, so there is not a best model.";
         }
 
-        String bestModel = "";
-        double score = -1;
+        String bestBatch = bestOf(false);
+        String bestStreaming = bestOf(true);
+
+        if (bestBatch == null && bestStreaming == null) {
+            return "No models trained successfully, so there is not a best model.";
+        } else if (bestStreaming == null) {
+            return bestBatch;
+        } else if (bestBatch == null) {
+            return bestStreaming;
+        }
+        return bestBatch + "; best streaming model: " + bestStreaming;
+    }
+
+    //Create a private method that describes the best model among either the streaming or the batch models
+    private String bestOf(boolean streaming) {
+        String bestModel = null;
+        double score = Double.NaN;
 
         for (Map.Entry<String, Double> entry : accuracy.entrySet()) {
-            if (entry.getValue() > score) {
+            if (streamed.contains(entry.getKey()) == streaming && !Double.isNaN(entry.getValue())
+                    && (bestModel == null || isBetter(entry.getValue(), score))) {
                 score = entry.getValue();
                 bestModel = entry.getKey();
             }
         }
 
-        return bestModel + " (Score: " + String.format("%.3f", score) + ")";
+        if (bestModel == null) {
+            return null;
+        }
+
+        String best = bestModel + " (" + (streaming ? "Prequential " : "") + (rankByError ? "RMSE" : "Score") + ": "
+                + String.format("%.3f", score);
+
+        //With repeated CV results, say whether the winner beats the runner-up beyond resampling noise
+        ResamplingEvaluator.Result bestResult = resampled.get(bestModel);
+        if (bestResult != null) {
+            best += String.format(", 95%% CI %.3f to %.3f", bestResult.getLower(), bestResult.getUpper());
+
+            String runnerUp = null;
+            for (Map.Entry<String, Double> entry : accuracy.entrySet()) {
+                if (!entry.getKey().equals(bestModel) && resampled.containsKey(entry.getKey())
+                        && (runnerUp == null || isBetter(entry.getValue(), accuracy.get(runnerUp)))) {
+                    runnerUp = entry.getKey();
+                }
+            }
+
+            if (runnerUp != null) {
+                double p = ResamplingEvaluator.pValue(bestResult, resampled.get(runnerUp));
+                String verdict = p < SIGNIFICANCE_LEVEL ? "significantly better" : "not significantly better";
+                best += String.format("; %s than %s, p = %.3f", verdict, runnerUp, p);
+            }
+        }
+
+        return best + ")";
+    }
+
+    private boolean isBetter(double score, double other) {
+        return rankByError ? score < other : score > other;
     }
 
     public Map<String, String> getSummary() {
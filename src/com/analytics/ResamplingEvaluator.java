@@ -0,0 +1,370 @@
+package com.analytics;
+
+import org.apache.commons.math3.distribution.TDistribution;
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Evaluates models with repeated cross-validation and bootstrap resamples run in parallel,
+ * reporting a mean score with a confidence interval instead of a single point estimate
+ */
+
+public class ResamplingEvaluator {
+    private final int repeats;
+    private final int folds;
+    private final int bootstraps;
+
+    //Splits depend only on the row count and class column, so they are cached and reused by every model and later runs.
+    //Only the fold number of each row per repeat and one seed per bootstrap are kept; rows are gathered per task
+    private String cachedKey;
+    private int[][] foldOf;
+    private long[] bootstrapSeeds;
+
+    public ResamplingEvaluator(int repeats, int folds, int bootstraps) {
+        this.repeats = repeats;
+        this.folds = folds;
+        this.bootstraps = bootstraps;
+    }
+
+    //One train/test split, either fold `fold` of repeat `repeat` or a bootstrap sample drawn from `seed`
+    private static class Split {
+        final int[] foldOf;
+        final int fold;
+        final long seed;
+        final boolean bootstrap;
+
+        Split(int[] foldOf, int fold, long seed, boolean bootstrap) {
+            this.foldOf = foldOf;
+            this.fold = fold;
+            this.seed = seed;
+            this.bootstrap = bootstrap;
+        }
+    }
+
+    //Mean score, confidence intervals and per-fold scores of one model
+    public static class Result {
+        private final double[] foldScores;
+        private final double mean;
+        private final double lower;
+        private final double upper;
+        private final double bootstrapMean;
+        private final double bootstrapLower;
+        private final double bootstrapUpper;
+        private final double testTrainRatio;
+        private final int resamples;
+        private final int droppedResamples;
+
+        Result(double[] foldScores, double[] bootstrapScores, double testTrainRatio) {
+            this.foldScores = foldScores;
+            this.testTrainRatio = testTrainRatio;
+
+            double[] valid = finite(foldScores);
+            double[] boot = finite(bootstrapScores);
+            resamples = foldScores.length + bootstrapScores.length;
+            droppedResamples = resamples - valid.length - boot.length;
+
+            mean = mean(valid);
+            double halfWidth = criticalValue(valid.length) * correctedStandardError(valid, testTrainRatio);
+            lower = mean - halfWidth;
+            upper = mean + halfWidth;
+
+            //Percentile interval over the out-of-bag scores
+            Arrays.sort(boot);
+            bootstrapMean = mean(boot);
+            bootstrapLower = percentile(boot, 0.025);
+            bootstrapUpper = percentile(boot, 0.975);
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getLower() {
+            return lower;
+        }
+
+        public double getUpper() {
+            return upper;
+        }
+
+        public double getBootstrapMean() {
+            return bootstrapMean;
+        }
+
+        public double getBootstrapLower() {
+            return bootstrapLower;
+        }
+
+        public double getBootstrapUpper() {
+            return bootstrapUpper;
+        }
+
+        public int getResamples() {
+            return resamples;
+        }
+
+        //Resamples whose score could not be computed, e.g. a model that failed to build or an empty out-of-bag set
+        public int getDroppedResamples() {
+            return droppedResamples;
+        }
+
+        public boolean isValid() {
+            return !Double.isNaN(mean);
+        }
+    }
+
+    //Create a method that drops the cached splits when resampling is switched off
+    public synchronized void clear() {
+        cachedKey = null;
+        foldOf = null;
+        bootstrapSeeds = null;
+    }
+
+    //Heap the cached fold numbers take per row of the dataset
+    public static long cachedBytesPerRow(int repeats) {
+        return (long) Integer.BYTES * repeats;
+    }
+
+    //Create a method that scores every model on the first `useRepeats` cached CV repeats and `useBootstraps`
+    //bootstrap samples, one split per task on a pool of `threads` threads
+    public Map<String, Result> evaluate(Map<String, Classifier> models, Instances data, int threads,
+                                        int useRepeats, int useBootstraps) throws Exception {
+        if (useRepeats < 1 || useRepeats > repeats || useBootstraps < 0 || useBootstraps > bootstraps) {
+            throw new IllegalArgumentException("At most " + repeats + " repeats and " + bootstraps + " bootstraps are cached");
+        }
+        List<Split> cached = splitsFor(data, useRepeats, useBootstraps);
+        List<String> names = new ArrayList<>(models.keySet());
+        boolean isNumeric = data.classAttribute().isNumeric();
+
+        System.out.println("Resampling with " + threads + " thread(s)");
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<double[]>> tasks = new ArrayList<>();
+        try {
+            for (Split split : cached) {
+                tasks.add(pool.submit(() -> scoreSplit(models, names, data, split, isNumeric)));
+            }
+
+            List<double[]> foldScores = new ArrayList<>();
+            List<double[]> bootstrapScores = new ArrayList<>();
+            for (int i = 0; i < tasks.size(); i++) {
+                double[] scores = tasks.get(i).get();
+                (cached.get(i).bootstrap ? bootstrapScores : foldScores).add(scores);
+            }
+
+            //Nadeau and Bengio correction: CV training sets overlap, so scale the variance by test/train size
+            double testTrainRatio = 1.0 / (folds - 1);
+
+            Map<String, Result> results = new LinkedHashMap<>();
+            for (int m = 0; m < names.size(); m++) {
+                results.put(names.get(m), new Result(column(foldScores, m), column(bootstrapScores, m), testTrainRatio));
+            }
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    //Two-sided p-value of the corrected resampled paired t-test on the fold scores of two models
+    public static double pValue(Result first, Result second) {
+        List<Double> differences = new ArrayList<>();
+        for (int i = 0; i < first.foldScores.length; i++) {
+            double difference = first.foldScores[i] - second.foldScores[i];
+            if (!Double.isNaN(difference)) {
+                differences.add(difference);
+            }
+        }
+        if (differences.size() < 2) {
+            return Double.NaN;
+        }
+
+        double[] values = differences.stream().mapToDouble(Double::doubleValue).toArray();
+        double meanDifference = mean(values);
+        double standardError = correctedStandardError(values, first.testTrainRatio);
+        if (standardError == 0) {
+            return meanDifference == 0 ? 1.0 : 0.0;
+        }
+
+        double t = Math.abs(meanDifference / standardError);
+        return 2 * (1 - new TDistribution(values.length - 1).cumulativeProbability(t));
+    }
+
+    private double[] scoreSplit(Map<String, Classifier> models, List<String> names, Instances data,
+                                Split split, boolean isNumeric) throws Exception {
+        int rows = data.numInstances();
+        Instances train = new Instances(data, rows);
+        Instances test = new Instances(data, split.bootstrap ? rows / 2 : rows / folds + 1);
+
+        if (split.bootstrap) {
+            //Draw the bootstrap counts again from the cached seed; rows never drawn form the out-of-bag test set
+            Random random = new Random(split.seed);
+            int[] drawn = new int[rows];
+            for (int i = 0; i < rows; i++) {
+                drawn[random.nextInt(rows)]++;
+            }
+            for (int i = 0; i < rows; i++) {
+                for (int copy = 0; copy < drawn[i]; copy++) {
+                    train.add(data.instance(i));
+                }
+                if (drawn[i] == 0) {
+                    test.add(data.instance(i));
+                }
+            }
+        } else {
+            for (int i = 0; i < rows; i++) {
+                (split.foldOf[i] == split.fold ? test : train).add(data.instance(i));
+            }
+        }
+
+        double[] scores = new double[names.size()];
+        for (int m = 0; m < names.size(); m++) {
+            try {
+                Classifier classifier = AbstractClassifier.makeCopy(models.get(names.get(m)));
+                classifier.buildClassifier(train);
+
+                Evaluation eval = new Evaluation(train);
+                eval.evaluateModel(classifier, test);
+                //RMSE stays defined on tiny folds, where a correlation is noise or NaN when all actual values are equal
+                scores[m] = isNumeric ? eval.rootMeanSquaredError() : eval.pctCorrect();
+            } catch (Exception e) {
+                System.err.println("Error evaluating " + names.get(m) + " on a resample: " + e.getMessage());
+                scores[m] = Double.NaN;
+            }
+        }
+        return scores;
+    }
+
+    private synchronized List<Split> splitsFor(Instances data, int useRepeats, int useBootstraps) {
+        String key = data.numInstances() + ":" + data.classIndex() + ":"
+                + Arrays.hashCode(data.attributeToDoubleArray(data.classIndex()));
+        if (foldOf == null || !key.equals(cachedKey)) {
+            createSplits(data);
+            cachedKey = key;
+        }
+
+        List<Split> splits = new ArrayList<>();
+        for (int r = 0; r < useRepeats; r++) {
+            for (int fold = 0; fold < folds; fold++) {
+                splits.add(new Split(foldOf[r], fold, 0, false));
+            }
+        }
+        for (int b = 0; b < useBootstraps; b++) {
+            splits.add(new Split(null, 0, bootstrapSeeds[b], true));
+        }
+        return splits;
+    }
+
+    //Create a method that draws R stratified K-fold partitions and B bootstrap seeds, seeded for repeatability.
+    //All of them are cached, so a run that uses fewer still sees the same first splits
+    private void createSplits(Instances data) {
+        int rows = data.numInstances();
+        foldOf = new int[repeats][];
+
+        for (int r = 0; r < repeats; r++) {
+            Random random = new Random(r + 1);
+            int[] order = new int[rows];
+            for (int i = 0; i < rows; i++) {
+                order[i] = i;
+            }
+            for (int i = rows - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+
+            //Stratify like Instances.stratify: group by class, then deal rows round robin into folds
+            if (data.classAttribute().isNominal()) {
+                order = groupByClass(data, order);
+            }
+
+            int[] folding = new int[rows];
+            for (int position = 0; position < rows; position++) {
+                folding[order[position]] = position % folds;
+            }
+            foldOf[r] = folding;
+        }
+
+        bootstrapSeeds = new long[bootstraps];
+        for (int b = 0; b < bootstraps; b++) {
+            bootstrapSeeds[b] = repeats + b + 1;
+        }
+    }
+
+    //Stable counting sort of the shuffled rows by class value, with missing classes last
+    private static int[] groupByClass(Instances data, int[] order) {
+        int classes = data.classAttribute().numValues();
+        int[] starts = new int[classes + 2];
+        for (int row : order) {
+            starts[classBucket(data, row, classes) + 1]++;
+        }
+        for (int c = 1; c < starts.length; c++) {
+            starts[c] += starts[c - 1];
+        }
+
+        int[] grouped = new int[order.length];
+        for (int row : order) {
+            grouped[starts[classBucket(data, row, classes)]++] = row;
+        }
+        return grouped;
+    }
+
+    private static int classBucket(Instances data, int row, int classes) {
+        double value = data.instance(row).classValue();
+        return Double.isNaN(value) ? classes : (int) value;
+    }
+
+    private static double[] column(List<double[]> rows, int index) {
+        double[] values = new double[rows.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rows.get(i)[index];
+        }
+        return values;
+    }
+
+    private static double[] finite(double[] values) {
+        return Arrays.stream(values).filter(value -> !Double.isNaN(value) && !Double.isInfinite(value)).toArray();
+    }
+
+    private static double mean(double[] values) {
+        return values.length == 0 ? Double.NaN : Arrays.stream(values).average().getAsDouble();
+    }
+
+    private static double correctedStandardError(double[] values, double testTrainRatio) {
+        if (values.length < 2) {
+            return Double.NaN;
+        }
+        double mean = mean(values);
+        double sumSquares = 0;
+        for (double value : values) {
+            sumSquares += (value - mean) * (value - mean);
+        }
+        double variance = sumSquares / (values.length - 1);
+        return Math.sqrt((1.0 / values.length + testTrainRatio) * variance);
+    }
+
+    //Two-sided 95% critical value of Student's t with n - 1 degrees of freedom
+    private static double criticalValue(int n) {
+        return n < 2 ? Double.NaN : new TDistribution(n - 1).inverseCumulativeProbability(0.975);
+    }
+
+    private static double percentile(double[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.round(fraction * (sorted.length - 1));
+        return sorted[index];
+    }
+}
@@ -30,6 +30,7 @@ public class AnalyticsGUI extends JFrame {
     private JButton analyzeButton;
     private JButton trainButton;
     private JButton reportButton;
+    private JCheckBox repeatedBox;
 
     public AnalyticsGUI() {
         //Initialize components
@@ -117,10 +118,12 @@ public class AnalyticsGUI extends JFrame {
         analyzeButton = new JButton("Analyze Data");
         trainButton = new JButton("Train Models");
         reportButton = new JButton("Generate Report");
+        repeatedBox = new JCheckBox("Repeated CV + bootstrap", true);
 
         buttons.add(analyzeButton);
         buttons.add(trainButton);
         buttons.add(reportButton);
+        buttons.add(repeatedBox);
 
         panel.add(target);
         panel.add(buttons);
@@ -161,14 +164,19 @@ public class AnalyticsGUI extends JFrame {
 
         resultsArea.setText("Loading data...\n");
 
-        //Disable buttons during loading data
+        boolean repeated = repeatedBox.isSelected();
+
+        //Disable buttons during loading data. The previous dataset is dropped as soon as loading starts,
+        //so training and reporting stay off until the new data has loaded
         loadButton.setEnabled(false);
         analyzeButton.setEnabled(false);
+        trainButton.setEnabled(false);
+        reportButton.setEnabled(false);
 
         SwingWorker<Boolean, Void> worker = new SwingWorker<Boolean, Void>() {
             @Override
             protected Boolean doInBackground() {
-                return processor.loadData(filePath);
+                return processor.loadData(filePath, repeated);
             }
 
             @Override
@@ -176,6 +184,7 @@ public class AnalyticsGUI extends JFrame {
                 try {
                     boolean success = get();
                     if (success) {
+                        resultsArea.append(processor.getPlan() + "\n");
                         populateTargetColumn();
                         analyzeButton.setEnabled(true);
                         resultsArea.append("Data loaded successfully!\n");
@@ -240,29 +249,57 @@ public class AnalyticsGUI extends JFrame {
 
         //Disable button during training
         trainButton.setEnabled(false);
+        boolean repeated = repeatedBox.isSelected();
+        train.setRepeatedEvaluation(repeated);
 
-        SwingWorker<Void, String> worker = new SwingWorker<Void, String>() {
+        SwingWorker<Boolean, String> worker = new SwingWorker<Boolean, String>() {
             @Override
-            protected Void doInBackground() {
+            protected Boolean doInBackground() {
                 try {
+                    if (processor.getPlan() == null) {
+                        publish("Error: No data loaded, please load the file again\n");
+                        return false;
+                    }
+
+                    //The memory plan depends on the evaluation mode, so reload if the checkbox changed since loading
+                    if (processor.getPlan().isRepeatedEvaluation() != repeated) {
+                        publish("Re-planning memory for the selected evaluation mode...\n");
+                        if (!processor.loadData(processor.getSourcePath(), repeated)) {
+                            publish("Error: Could not reload data\n");
+                            return false;
+                        }
+                        publish(processor.getPlan() + "\n");
+                    }
+
                     publish("Setting target column...\n");
                     processor.setTargetColumn(columnTarget);
 
+                    if (processor.isStreaming()) {
+                        publish("Dataset too large for memory, streaming rows through updateable models...\n");
+                        train.trainModelStreaming(processor.openStream());
+                        publish("Training completed!\n");
+                        return true;
+                    }
+
                     publish("Cleaning data...\n");
                     Instances cleanData = processor.cleanData();
 
                     if (cleanData != null) {
                         publish("Training models...\n");
-                        train.trainModel(cleanData);
+                        if (processor.isOffHeap()) {
+                            train.trainModel(cleanData, processor.openStream());
+                        } else {
+                            train.trainModel(cleanData);
+                        }
                         publish("Training completed!\n");
-                    } else {
-                        publish("Error: Could not clean data\n");
+                        return true;
                     }
+                    publish("Error: Could not clean data\n");
                 } catch (Exception e) {
                     publish("Error during training: " + e.getMessage() + "\n");
                 }
 
-                return null;
+                return false;
             }
 
             @Override
@@ -275,6 +312,11 @@ public class AnalyticsGUI extends JFrame {
             @Override
             protected void done() {
                 try {
+                    //Results from an earlier run are not shown again when this one did not train
+                    if (!get()) {
+                        return;
+                    }
+
                     Map<String, String> summaries = train.getSummary();
                     for (Map.Entry<String, String> entry : summaries.entrySet()) {
                         resultsArea.append(entry.getKey() + ": " + entry.getValue() + "\n");